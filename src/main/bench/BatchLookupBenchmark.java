@@ -0,0 +1,129 @@
+package main.bench;
+
+import main.core.Quad;
+import main.core.QuadTree;
+
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Compares batch lookups of {@link QuadTree} with looking up each point on its own, and makes sure
+ * both give the same colors. Image trees are checked both fully and lazily constructed, and the point
+ * tree is as large as the batch lookup supports, so its Morton codes use all of their bits.
+ */
+public class BatchLookupBenchmark {
+
+    private static final int IMAGE_SIZE = 1 << 11;
+    private static final int POINT_TREE_SIZE = 1 << 16;
+    private static final int POINT_TREE_POINTS = 200000;
+    private static final int LOOKUPS = 2000000;
+    private static final float ERROR_TOLERANCE = 50;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        Color[][] image = generateImage(random);
+        int[][] lookups = randomPoints(random, IMAGE_SIZE, LOOKUPS);
+        System.out.println("Lookups: " + LOOKUPS + ", image size: " + IMAGE_SIZE + "\n");
+
+        QuadTree tree = new QuadTree(image, ERROR_TOLERANCE);
+        check("QuadTree", tree, lookups[0], lookups[1]);
+
+        //A fresh lazy tree for each lookup, so nodes are expanded by the lookup itself,
+        //and in the parallel case by several threads at once
+        for (boolean parallel : new boolean[]{false, true}) {
+            QuadTree lazy = QuadTree.compressLazily(image, ERROR_TOLERANCE);
+            check("Lazily constructed QuadTree" + (parallel ? ", parallel" : ""), lazy, lookups[0], lookups[1], parallel);
+        }
+
+        //Warming up
+        for (int i = 0; i < 3; i++)
+            run(tree, lookups[0], lookups[1], false);
+        run(tree, lookups[0], lookups[1], true);
+
+        int[][] points = randomPoints(random, POINT_TREE_SIZE, POINT_TREE_POINTS);
+        QuadTree pointTree = new QuadTree(POINT_TREE_SIZE);
+        for (int i = 0; i < POINT_TREE_POINTS; i++)
+            pointTree.set(new Quad(points[0][i], points[1][i], new Color(random.nextInt())));
+        check("Point QuadTree (size " + POINT_TREE_SIZE + ")", pointTree, points[0], points[1]);
+
+        //Half of the lookups miss the points of the tree
+        int[][] misses = randomPoints(random, POINT_TREE_SIZE, POINT_TREE_POINTS);
+        check("Point QuadTree (size " + POINT_TREE_SIZE + "), missing points", pointTree, misses[0], misses[1]);
+    }
+
+    private static void run(QuadTree tree, int[] xs, int[] ys, boolean print) {
+        long single = 0, batch = 0, parallel = 0;
+        int[] out = new int[xs.length];
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < xs.length; i++)
+                tree.get(xs[i], ys[i]);
+            single += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            tree.get(xs, ys, out, false);
+            batch += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            tree.get(xs, ys, out, true);
+            parallel += System.nanoTime() - start;
+        }
+        if (print) {
+            double ops = (double) xs.length * ROUNDS;
+            System.out.println("QuadTree (" + tree.getNodeCount() + " nodes)");
+            System.out.printf("  get(x, y): %.1f ns/point%n", single / ops);
+            System.out.printf("  batch: %.1f ns/point%n", batch / ops);
+            System.out.printf("  parallel batch: %.1f ns/point%n%n", parallel / ops);
+        }
+    }
+
+    private static void check(String name, QuadTree tree, int[] xs, int[] ys) {
+        check(name, tree, xs, ys, false);
+        check(name + ", parallel", tree, xs, ys, true);
+    }
+
+    /**
+     * Makes sure the batch lookup agrees with looking up each point on its own.
+     */
+    private static void check(String name, QuadTree tree, int[] xs, int[] ys, boolean parallel) {
+        int[] out = new int[xs.length];
+        tree.get(xs, ys, out, parallel);
+        for (int i = 0; i < xs.length; i++) {
+            Color c = tree.get(xs[i], ys[i]);
+            if (out[i] != (c == null ? 0 : c.getRGB()))
+                throw new IllegalStateException(name + ": batch lookup of point (" + xs[i] + ", " + ys[i] + ") returned a different color");
+        }
+        System.out.println(name + ": batch lookup matches get(x, y)");
+    }
+
+    /**
+     * Generates smooth gradients with noisy blocks, so the tree has both large leaves and deep branches.
+     */
+    private static Color[][] generateImage(Random random) {
+        Color[][] image = new Color[IMAGE_SIZE][IMAGE_SIZE];
+        for (int x = 0; x < IMAGE_SIZE; x++) {
+            for (int y = 0; y < IMAGE_SIZE; y++) {
+                boolean noisy = ((x >> 7) + (y >> 7)) % 3 == 0;
+                int r = x * 255 / IMAGE_SIZE;
+                int g = y * 255 / IMAGE_SIZE;
+                int b = noisy ? random.nextInt(256) : 128;
+                image[x][y] = new Color(r, g, b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return x coordinates at index 0, y coordinates at index 1
+     */
+    private static int[][] randomPoints(Random random, int size, int n) {
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextInt(size);
+            ys[i] = random.nextInt(size);
+        }
+        return new int[][]{xs, ys};
+    }
+}
@@ -0,0 +1,113 @@
+package main.bench;
+
+import main.core.BucketQuadTree;
+import main.core.Quad;
+import main.core.QuadTree;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares point insertion and lookup of {@link QuadTree} and {@link BucketQuadTree}
+ * on clustered points, that resemble GPS traces.
+ */
+public class PointQuadTreeBenchmark {
+
+    private static final int SIZE = 1 << 16;
+    private static final int TRACES = 20;
+    private static final int POINTS_PER_TRACE = 10000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int[][] points = generateTraces(new Random(42));
+        int[] xs = points[0];
+        int[] ys = points[1];
+        System.out.println("Points: " + xs.length + ", plane size: " + SIZE + "\n");
+
+        //Warming up
+        for (int i = 0; i < 3; i++) {
+            runPointTree(xs, ys, false);
+            runBucketTree(xs, ys, BucketQuadTree.DEFAULT_LEAF_CAPACITY, BucketQuadTree.DEFAULT_MAX_DEPTH, false);
+        }
+
+        runPointTree(xs, ys, true);
+        for (int capacity : new int[]{4, 16, 64})
+            runBucketTree(xs, ys, capacity, BucketQuadTree.DEFAULT_MAX_DEPTH, true);
+    }
+
+    private static void runPointTree(int[] xs, int[] ys, boolean print) {
+        long insert = 0, lookup = 0;
+        QuadTree tree = null;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            tree = new QuadTree(SIZE);
+            for (int i = 0; i < xs.length; i++)
+                tree.set(new Quad(xs[i], ys[i], Color.RED));
+            insert += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < xs.length; i++)
+                tree.get(xs[i], ys[i]);
+            lookup += System.nanoTime() - start;
+        }
+        if (print)
+            report("QuadTree (one point per leaf)", insert, lookup, xs.length, tree.getNodeCount(), -1);
+    }
+
+    private static void runBucketTree(int[] xs, int[] ys, int capacity, int maxDepth, boolean print) {
+        long insert = 0, lookup = 0;
+        BucketQuadTree tree = null;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            tree = new BucketQuadTree(SIZE, capacity, maxDepth);
+            for (int i = 0; i < xs.length; i++)
+                tree.set(new Quad(xs[i], ys[i], Color.RED));
+            insert += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < xs.length; i++)
+                tree.get(xs[i], ys[i]);
+            lookup += System.nanoTime() - start;
+        }
+        if (print)
+            report("BucketQuadTree (capacity " + capacity + ", max depth " + maxDepth + ")", insert, lookup, xs.length, tree.getNodeCount(), tree.getDepth());
+    }
+
+    private static void report(String name, long insert, long lookup, int points, int nodes, int depth) {
+        double ops = (double) points * ROUNDS;
+        System.out.println(name);
+        System.out.printf("  insert: %.1f ns/point%n", insert / ops);
+        System.out.printf("  lookup: %.1f ns/point%n", lookup / ops);
+        System.out.println("  nodes: " + nodes + (depth >= 0 ? ", depth: " + depth : "") + "\n");
+    }
+
+    /**
+     * Generates random walks with small steps. Repeated points are left out.
+     *
+     * @return x coordinates at index 0, y coordinates at index 1
+     */
+    private static int[][] generateTraces(Random random) {
+        Set<Long> seen = new HashSet<>();
+        int[] xs = new int[TRACES * POINTS_PER_TRACE];
+        int[] ys = new int[TRACES * POINTS_PER_TRACE];
+        int n = 0;
+
+        for (int t = 0; t < TRACES; t++) {
+            int x = random.nextInt(SIZE);
+            int y = random.nextInt(SIZE);
+            for (int i = 0; i < POINTS_PER_TRACE; i++) {
+                x = Math.min(SIZE - 1, Math.max(0, x + random.nextInt(7) - 3));
+                y = Math.min(SIZE - 1, Math.max(0, y + random.nextInt(7) - 3));
+                if (seen.add(((long) x << 32) | y)) {
+                    xs[n] = x;
+                    ys[n] = y;
+                    n++;
+                }
+            }
+        }
+        return new int[][]{Arrays.copyOf(xs, n), Arrays.copyOf(ys, n)};
+    }
+}
@@ -0,0 +1,273 @@
+package main.core;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A point quad tree, that keeps up to a given number of points in each leaf.
+ * Leaves are only subdivided once they overflow, and never below the maximum depth,
+ * so clustered points don't produce long chains of nodes.
+ */
+public class BucketQuadTree {
+
+    public static final int DEFAULT_LEAF_CAPACITY = 16;
+    public static final int DEFAULT_MAX_DEPTH = 12;
+
+    /**
+     * The root node of the quad tree, containing reference to all the other nodes.
+     */
+    private final Node root;
+
+    /**
+     * The size of 2D plane this tree represents
+     */
+    private final int size;
+
+    /**
+     * The number of points a leaf holds before it is subdivided
+     */
+    private final int leafCapacity;
+
+    /**
+     * The depth below which leaves are no longer subdivided
+     */
+    private final int maxDepth;
+
+    public BucketQuadTree(int size) {
+        this(size, DEFAULT_LEAF_CAPACITY, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param size         The size of 2D plane this tree represents. Must be a power of two
+     * @param leafCapacity The number of points a leaf holds before it is subdivided
+     * @param maxDepth     The depth below which leaves are no longer subdivided. Leaves at this depth grow instead
+     */
+    public BucketQuadTree(int size, int leafCapacity, int maxDepth) {
+        if (size == 0 || ((size & (size - 1)) != 0))
+            throw new UnsupportedOperationException("Size must be a power of two.");
+        if (leafCapacity < 1 || maxDepth < 0)
+            throw new UnsupportedOperationException("Leaf capacity must be positive and maximum depth can not be negative.");
+
+        this.size = size;
+        this.leafCapacity = leafCapacity;
+        this.maxDepth = maxDepth;
+        this.root = new Node();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets a specific point in a tree to a given color.
+     *
+     * @param p The point to set
+     */
+    public void set(Quad p) {
+        int px = p.getX();
+        int py = p.getY();
+        checkBounds(px, py);
+        boolean colored = p.getColor() != null;
+        int argb = colored ? p.getColor().getRGB() : 0;
+
+        Node n = root;
+        int x = 0, y = 0, w = size, depth = 0;
+
+        while (true) {
+            if (n.isLeaf()) {
+                int i = n.indexOf(px, py);
+                if (i >= 0) {
+                    n.colors[i] = argb;
+                    n.colored[i] = colored;
+                    return;
+                }
+                if (n.count < leafCapacity || depth >= maxDepth || w == 1) {
+                    n.add(px, py, argb, colored, leafCapacity);
+                    return;
+                }
+                n.split(x, y, w, leafCapacity);
+            }
+
+            int half = w / 2;
+            int q = QuadTree.quadrant(x + half, y + half, px, py);
+            n = n.children[q];
+            x = QuadTree.childX(q, x, half);
+            y = QuadTree.childY(q, y, half);
+            w = half;
+            depth++;
+        }
+    }
+
+    /**
+     * Retrieves the color of a point at given coordinates.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return The color of a given point. Null if no color has been set
+     */
+    public Color get(int x, int y) {
+        checkBounds(x, y);
+
+        Node n = root;
+        int nx = 0, ny = 0, w = size;
+
+        while (!n.isLeaf()) {
+            int half = w / 2;
+            int q = QuadTree.quadrant(nx + half, ny + half, x, y);
+            n = n.children[q];
+            nx = QuadTree.childX(q, nx, half);
+            ny = QuadTree.childY(q, ny, half);
+            w = half;
+        }
+
+        int i = n.indexOf(x, y);
+        if (i < 0 || !n.colored[i])
+            return null;
+        return new Color(n.colors[i], true);
+    }
+
+    /**
+     * @return A list of rectangles, that visually represent tree's subdivisions
+     */
+    public List<Rectangle> getDisplaySubdivisions(boolean leavesOnly) {
+        List<Rectangle> rectangles = new ArrayList<>();
+        root.addSubdivisionRectangles(rectangles, 0, 0, size, leavesOnly);
+        return rectangles;
+    }
+
+    /**
+     * @return The number of nodes this tree has
+     */
+    public int getNodeCount() {
+        return root.numChildren() + 1;
+    }
+
+    /**
+     * @return The number of levels below the root node
+     */
+    public int getDepth() {
+        return root.depth();
+    }
+
+    private void checkBounds(int x, int y) {
+        if (x < 0 || y < 0 || x >= size || y >= size)
+            throw new IndexOutOfBoundsException("Point (" + x + ", " + y + ") is outside of the tree");
+    }
+
+    private static class Node {
+
+        /**
+         * Children of the node, indexed the same way as in {@link QuadTree}. Null for leaves
+         */
+        private Node[] children;
+
+        /**
+         * Points of a leaf, with colors as ARGB values. Only the first {@link #count} entries are used.
+         * Allocated when the first point is added
+         */
+        private int count;
+        private int[] xs;
+        private int[] ys;
+        private int[] colors;
+
+        /**
+         * Whether each point of a leaf has a color. Points without one are read back as null
+         */
+        private boolean[] colored;
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        /**
+         * @return Index of a point with given coordinates in this leaf. -1 if there is no such point
+         */
+        int indexOf(int x, int y) {
+            for (int i = 0; i < count; i++) {
+                if (xs[i] == x && ys[i] == y)
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a point to this leaf, growing it if it's full.
+         *
+         * @param capacity The number of points to make room for, if the leaf has none yet
+         */
+        void add(int x, int y, int color, boolean hasColor, int capacity) {
+            if (xs == null) {
+                xs = new int[capacity];
+                ys = new int[capacity];
+                colors = new int[capacity];
+                colored = new boolean[capacity];
+            } else if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+                colors = Arrays.copyOf(colors, count * 2);
+                colored = Arrays.copyOf(colored, count * 2);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            colors[count] = color;
+            colored[count] = hasColor;
+            count++;
+        }
+
+        /**
+         * Turns this leaf into a branch, moving its points to the new leaves.
+         *
+         * @param x Region x coordinate
+         * @param y Region y coordinate
+         * @param w Region width
+         */
+        void split(int x, int y, int w, int capacity) {
+            children = new Node[4];
+            for (int i = 0; i < 4; i++)
+                children[i] = new Node();
+
+            int half = w / 2;
+            for (int i = 0; i < count; i++)
+                children[QuadTree.quadrant(x + half, y + half, xs[i], ys[i])].add(xs[i], ys[i], colors[i], colored[i], capacity);
+
+            count = 0;
+            xs = null;
+            ys = null;
+            colors = null;
+            colored = null;
+        }
+
+        int numChildren() {
+            if (isLeaf())
+                return 0;
+            int num = 4;
+            for (Node child : children)
+                num += child.numChildren();
+            return num;
+        }
+
+        int depth() {
+            if (isLeaf())
+                return 0;
+            int depth = 0;
+            for (Node child : children)
+                depth = Math.max(depth, child.depth());
+            return depth + 1;
+        }
+
+        void addSubdivisionRectangles(List<Rectangle> rectangles, int x, int y, int w, boolean leavesOnly) {
+            if (isLeaf()) {
+                rectangles.add(new Rectangle(x, y, w, w));
+                return;
+            }
+            if (!leavesOnly)
+                rectangles.add(new Rectangle(x, y, w, w));
+
+            int half = w / 2;
+            for (int i = 0; i < 4; i++)
+                children[i].addSubdivisionRectangles(rectangles, QuadTree.childX(i, x, half), QuadTree.childY(i, y, half), half, leavesOnly);
+        }
+    }
+}
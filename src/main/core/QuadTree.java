@@ -3,6 +3,8 @@ package main.core;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 public class QuadTree {
 
@@ -16,6 +18,26 @@ public class QuadTree {
      */
     private final int size;
 
+    /**
+     * Estimated number of bytes a branch node takes up when the tree is stored (marker and length of its children)
+     */
+    public static final int BRANCH_NODE_BYTES = 5;
+
+    /**
+     * Estimated number of bytes a leaf node takes up when the tree is stored (marker and RGB color)
+     */
+    public static final int LEAF_NODE_BYTES = 4;
+
+    /**
+     * The error bound this tree was compressed with.
+     */
+    private float compressionError;
+
+    /**
+     * The image nodes of a lazily constructed tree are compressed from. Null for other trees
+     */
+    private LazySource lazySource;
+
 
     public QuadTree(int size) {
         if (size != 0 && ((size & (size - 1)) == 0))
@@ -35,13 +57,209 @@ public class QuadTree {
      * @param errorTolerance The tolerance for error when compressing image. \n0 for lossless compression.
      */
     public QuadTree(Color[][] image, float errorTolerance) {
-        if (image.length == 0 || image[0].length != image.length || ((image.length & (image.length - 1)) != 0))
-            throw new UnsupportedOperationException("Quad tree must be a square, and it's size must be a power of two");
+        checkImage(image);
 
         this.size = image.length;
         root = new Node(new Quad(size / 2, size / 2, null));
 
         root = Node.compress(image, 0, 0, size, size, errorTolerance);
+        compressionError = errorTolerance;
+    }
+
+    /**
+     * Constructs a tree with given image's data, that has at most the given number of nodes.
+     * The region with the highest error is always subdivided first, so the result is
+     * the most detailed tree that fits the budget.
+     *
+     * @param image    The image to represent in this tree
+     * @param maxNodes The maximum number of nodes the tree may have
+     * @return The compressed tree. Use {@link #getCompressionError()} to get the achieved error
+     */
+    public static QuadTree compressToNodeBudget(Color[][] image, int maxNodes) {
+        return new QuadTree(image, maxNodes, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a tree with given image's data, whose estimated stored size does not exceed the given number of bytes.
+     * The region with the highest error is always subdivided first, so the result is
+     * the most detailed tree that fits the budget.
+     *
+     * @param image    The image to represent in this tree
+     * @param maxBytes The maximum estimated size of the tree in bytes
+     * @return The compressed tree. Use {@link #getCompressionError()} to get the achieved error
+     */
+    public static QuadTree compressToByteBudget(Color[][] image, long maxBytes) {
+        return new QuadTree(image, Integer.MAX_VALUE, maxBytes);
+    }
+
+    private QuadTree(Color[][] image, int maxNodes, long maxBytes) {
+        checkImage(image);
+        if (maxNodes < 1 || maxBytes < LEAF_NODE_BYTES)
+            throw new UnsupportedOperationException("Budget must allow at least a single node");
+
+        this.size = image.length;
+
+        Color rootColor = Node.regionMean(image, 0, 0, size, size);
+        root = new Node(new Quad(rootColor));
+
+        //Leaves, that can still be subdivided, with the highest error first
+        PriorityQueue<PendingLeaf> queue = new PriorityQueue<>();
+        queue.add(new PendingLeaf(root, 0, 0, size, Node.regionError(image, 0, 0, size, size, rootColor, Float.POSITIVE_INFINITY)));
+
+        int nodes = 1;
+        long bytes = LEAF_NODE_BYTES;
+        long splitBytes = BRANCH_NODE_BYTES + 3 * LEAF_NODE_BYTES;
+
+        while (!queue.isEmpty()) {
+            PendingLeaf next = queue.peek();
+            if (next.error == 0 || next.w == 1 || nodes > maxNodes - 4 || bytes > maxBytes - splitBytes)
+                break;
+            queue.poll();
+
+            int half = next.w / 2;
+            Node n = next.node;
+            n.quad = new Quad(next.x + half, next.y + half, null);
+            n.children[Node.TOP_RIGHT] = leaf(image, next.x + half, next.y + half, half, queue);
+            n.children[Node.TOP_LEFT] = leaf(image, next.x, next.y + half, half, queue);
+            n.children[Node.BOTTOM_LEFT] = leaf(image, next.x, next.y, half, queue);
+            n.children[Node.BOTTOM_RIGHT] = leaf(image, next.x + half, next.y, half, queue);
+
+            nodes += 4;
+            bytes += splitBytes;
+        }
+
+        compressionError = queue.isEmpty() ? 0 : queue.peek().error;
+    }
+
+    /**
+     * Creates a leaf node for the given region, and queues it for further subdivision.
+     */
+    private static Node leaf(Color[][] image, int x, int y, int w, PriorityQueue<PendingLeaf> queue) {
+        Color c = Node.regionMean(image, x, y, w, w);
+        Node n = new Node(new Quad(c));
+        queue.add(new PendingLeaf(n, x, y, w, Node.regionError(image, x, y, w, w, c, Float.POSITIVE_INFINITY)));
+        return n;
+    }
+
+    /**
+     * Constructs a tree with given image's data, without compressing any of it yet. A node compresses
+     * its region only once a lookup, visitor or another tree operation first reaches it, so only the
+     * regions, that are actually used, are ever analysed. Nodes can be expanded from several threads at once.
+     * <p>
+     * The image is read as the tree is expanded, so it must not be modified afterwards. Operations, that walk
+     * the whole tree, such as {@link #getNodeCount()}, expand it fully.
+     *
+     * @param image          The image to represent in this tree
+     * @param errorTolerance The tolerance for error when compressing image. 0 for lossless compression.
+     * @return The tree, with only its root created
+     */
+    public static QuadTree compressLazily(Color[][] image, float errorTolerance) {
+        checkImage(image);
+
+        LazySource source = new LazySource(image, errorTolerance);
+        QuadTree tree = new QuadTree(image.length, Node.lazy(source, 0, 0, image.length));
+        tree.lazySource = source;
+        tree.compressionError = errorTolerance;
+        return tree;
+    }
+
+    private static void checkImage(Color[][] image) {
+        if (image.length == 0 || image[0].length != image.length || ((image.length & (image.length - 1)) != 0))
+            throw new UnsupportedOperationException("Quad tree must be a square, and it's size must be a power of two");
+    }
+
+    /**
+     * For trees constructed with an error tolerance this is the tolerance itself. For trees
+     * constructed to a budget, this is the highest error of any region left in the tree.
+     * Trees derived by cropping or downscaling report the error of their source tree, and overlaid trees
+     * the larger error of the two.
+     *
+     * @return The error bound of this tree
+     */
+    public float getCompressionError() {
+        return compressionError;
+    }
+
+    private QuadTree(int size, Node root) {
+        this(size);
+        this.root = root;
+    }
+
+    /**
+     * Shrinks the image this tree represents by a factor of 2^levels. Subtrees, that become a single
+     * pixel, are replaced by a leaf of their average color. Only the nodes of the result and the
+     * subtrees being averaged are visited.
+     *
+     * @param levels The number of times to halve the image size
+     * @return A new tree of size getSize() / 2^levels
+     */
+    public QuadTree downscale(int levels) {
+        if (levels < 0 || levels > Integer.numberOfTrailingZeros(size))
+            throw new UnsupportedOperationException("Image can not be downscaled by " + levels + " levels");
+
+        int newSize = size >> levels;
+        QuadTree downscaled = root == null ? new QuadTree(newSize) : new QuadTree(newSize, root.downscale(0, 0, newSize, levels));
+        downscaled.compressionError = compressionError;
+        return downscaled;
+    }
+
+    /**
+     * Cuts out a square region of the image this tree represents. The region must match a subtree,
+     * so its size must be a power of two and its coordinates multiples of its size.
+     *
+     * @param x        Region x coordinate
+     * @param y        Region y coordinate
+     * @param cropSize Region width and height
+     * @return A new tree of size cropSize
+     */
+    public QuadTree crop(int x, int y, int cropSize) {
+        if (cropSize <= 0 || (cropSize & (cropSize - 1)) != 0 || cropSize > size)
+            throw new UnsupportedOperationException("Crop size must be a power of two, that does not exceed the tree size");
+        if (x < 0 || y < 0 || x % cropSize != 0 || y % cropSize != 0 || x >= size || y >= size)
+            throw new UnsupportedOperationException("Crop coordinates must be multiples of the crop size within the tree");
+
+        Node n = root;
+        int nx = 0, ny = 0, w = size;
+
+        //Finding the node, that covers the region
+        while (n != null && w > cropSize && !n.isLeaf()) {
+            int half = w / 2;
+            int q = quadrant(nx + half, ny + half, x, y);
+            n = n.children[q];
+            nx = childX(q, nx, half);
+            ny = childY(q, ny, half);
+            w = half;
+        }
+
+        QuadTree cropped;
+        if (n == null)
+            cropped = new QuadTree(cropSize);
+        else if (n.isLeaf())
+            cropped = new QuadTree(cropSize, new Node(new Quad(n.quad.getColor())));
+        else
+            cropped = new QuadTree(cropSize, n.copy(0, 0, cropSize));
+
+        cropped.compressionError = compressionError;
+        return cropped;
+    }
+
+    /**
+     * Blends another tree of the same size over this one. Regions, that are uniform in both trees,
+     * are blended as a whole, so only the nodes of the result are visited.
+     *
+     * @param top     The tree to put over this one
+     * @param opacity Opacity of the top tree, from 0 to 1
+     * @return A new tree, that represents the blended image
+     */
+    public QuadTree overlay(QuadTree top, float opacity) {
+        if (top.size != size)
+            throw new UnsupportedOperationException("Only trees of equal size can be overlaid");
+        if (opacity < 0 || opacity > 1)
+            throw new UnsupportedOperationException("Opacity must be between 0 and 1");
+
+        QuadTree overlaid = new QuadTree(size, Node.overlay(root, top.root, 0, 0, size, opacity));
+        overlaid.compressionError = Math.max(compressionError, top.compressionError);
+        return overlaid;
     }
 
     /**
@@ -73,6 +291,123 @@ public class QuadTree {
         return root.get(x, y, minDepth);
     }
 
+    /**
+     * Retrieves the color of the region, that contains a point, following the same region layout as
+     * {@link #accept(Visitor)}. Unlike {@link #get(int, int)}, points on a region's center line belong
+     * to the upper quadrant. Intended for trees constructed from an image.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return The color of a given point. Null if no color has been set
+     */
+    Color getRegionColor(int x, int y) {
+        Node n = root;
+        int nx = 0, ny = 0, w = size;
+
+        while (n != null && !n.isLeaf()) {
+            int half = w / 2;
+            int q = quadrant(nx + half, ny + half, x, y);
+            n = n.children[q];
+            nx = childX(q, nx, half);
+            ny = childY(q, ny, half);
+            w = half;
+        }
+        return n == null ? null : n.quad.getColor();
+    }
+
+    /**
+     * Retrieves the colors of many points at once. Gives the same results as calling {@link #get(int, int)}
+     * for each point, but the points are sorted in Morton order first, so the path from the root, that
+     * nearby points share, is walked only once. Works for trees constructed from an image, including lazily
+     * constructed ones, as well as for trees of points added with {@link #set(Quad)}.
+     *
+     * @param xs  The x coordinates
+     * @param ys  The y coordinates
+     * @param out Receives the ARGB color of each point. 0 for points, that have no color
+     */
+    public void get(int[] xs, int[] ys, int[] out) {
+        get(xs, ys, out, false);
+    }
+
+    /**
+     * Retrieves the colors of many points at once. See {@link #get(int[], int[], int[])}.
+     *
+     * @param parallel Whether to sort and look up the points in parallel, in chunks of neighbouring points
+     */
+    public void get(int[] xs, int[] ys, int[] out, boolean parallel) {
+        if (xs.length != ys.length || out.length < xs.length)
+            throw new UnsupportedOperationException("Coordinate arrays must be of equal length, and fit in the output array");
+
+        int n = xs.length;
+        if (root == null) {
+            Arrays.fill(out, 0, n, 0);
+            return;
+        }
+
+        if (size > MAX_MORTON_SIZE) {
+            //Morton codes of points in such a plane don't fit next to the point index
+            for (int i = 0; i < n; i++)
+                out[i] = argb(get(xs[i], ys[i]));
+            return;
+        }
+
+        //Morton code above the lowest INDEX_BITS bits, index of the point in them. The sign bit stays clear,
+        //so signed sorting orders the codes as unsigned numbers
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            if (xs[i] < 0 || ys[i] < 0 || xs[i] >= size || ys[i] >= size)
+                throw new IndexOutOfBoundsException("Point (" + xs[i] + ", " + ys[i] + ") is outside of the tree");
+
+            //get(x, y) puts points on a region's center line into the lower quadrant
+            int x = Math.max(xs[i] - 1, 0);
+            int y = Math.max(ys[i] - 1, 0);
+            keys[i] = ((spreadBits(x) << 1 | spreadBits(y)) << INDEX_BITS) | i;
+        }
+
+        if (!parallel) {
+            Arrays.sort(keys);
+            Node.get(root, size, keys, 0, n, xs, ys, out);
+            return;
+        }
+
+        Arrays.parallelSort(keys);
+        int chunks = Math.max(1, Math.min(n / MIN_PARALLEL_CHUNK, Runtime.getRuntime().availableProcessors() * 4));
+        IntStream.range(0, chunks).parallel().forEach(c ->
+                Node.get(root, size, keys, (int) ((long) n * c / chunks), (int) ((long) n * (c + 1) / chunks), xs, ys, out));
+    }
+
+    /**
+     * The largest tree size, whose point Morton codes fit in 32 bits
+     */
+    private static final int MAX_MORTON_SIZE = 1 << 16;
+
+    /**
+     * The number of lowest bits of a lookup key, that hold the point index
+     */
+    private static final int INDEX_BITS = 31;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    /**
+     * The smallest number of points a parallel lookup chunk has
+     */
+    private static final int MIN_PARALLEL_CHUNK = 4096;
+
+    /**
+     * Spreads the lower 16 bits of a number to the even bits of the result.
+     */
+    private static long spreadBits(int v) {
+        long x = v & 0xFFFF;
+        x = (x | x << 8) & 0x00FF00FFL;
+        x = (x | x << 4) & 0x0F0F0F0FL;
+        x = (x | x << 2) & 0x33333333L;
+        x = (x | x << 1) & 0x55555555L;
+        return x;
+    }
+
+    private static int argb(Color c) {
+        return c == null ? 0 : c.getRGB();
+    }
+
     /**
      * @return A list of rectangles, that visually represent tree's subdivisions
      */
@@ -83,6 +418,75 @@ public class QuadTree {
             return root.getSubdivisionRectangles(size / 2, leavesOnly);
     }
 
+    /**
+     * Walks the tree in depth first order, visiting a branch before its children.
+     * Intended for trees constructed from an image. A tree without a root is visited as a single undefined leaf.
+     *
+     * @param visitor The visitor to pass the nodes to
+     */
+    public void accept(Visitor visitor) {
+        if (root != null)
+            root.accept(visitor, 0, 0, size);
+        else
+            visitor.visitLeaf(0, 0, size, null);
+    }
+
+    /**
+     * @return The x coordinate of the given quadrant of a region
+     */
+    static int childX(int quadrant, int x, int half) {
+        return quadrant == Node.TOP_RIGHT || quadrant == Node.BOTTOM_RIGHT ? x + half : x;
+    }
+
+    /**
+     * @return The y coordinate of the given quadrant of a region
+     */
+    static int childY(int quadrant, int y, int half) {
+        return quadrant == Node.TOP_RIGHT || quadrant == Node.TOP_LEFT ? y + half : y;
+    }
+
+    /**
+     * @return The quadrant of a region with the given center, that contains the given point
+     */
+    static int quadrant(int centerX, int centerY, int x, int y) {
+        if (x >= centerX)
+            return y >= centerY ? Node.TOP_RIGHT : Node.BOTTOM_RIGHT;
+        else
+            return y >= centerY ? Node.TOP_LEFT : Node.BOTTOM_LEFT;
+    }
+
+    /**
+     * Receives the nodes of a tree together with the square region each of them covers.
+     * Children of a branch are visited in the order of their quadrant index.
+     */
+    public interface Visitor {
+
+        /**
+         * @param x    Region x coordinate
+         * @param y    Region y coordinate
+         * @param size Region width and height
+         */
+        void visitBranch(int x, int y, int size);
+
+        /**
+         * Called once all children of a branch have been visited.
+         *
+         * @param x    Region x coordinate
+         * @param y    Region y coordinate
+         * @param size Region width and height
+         */
+        default void leaveBranch(int x, int y, int size) {
+        }
+
+        /**
+         * @param x     Region x coordinate
+         * @param y     Region y coordinate
+         * @param size  Region width and height
+         * @param color Color of the region. Null if the region is not defined
+         */
+        void visitLeaf(int x, int y, int size, Color color);
+    }
+
     /**
      * @return The number of nodes this tree has
      */
@@ -92,6 +496,87 @@ public class QuadTree {
         else return root.numChildren() + 1;
     }
 
+    /**
+     * @return The number of nodes created so far. For trees, that are not constructed lazily, all of their nodes
+     */
+    public int getMaterializedNodeCount() {
+        return lazySource == null ? getNodeCount() : lazySource.createdNodes.get();
+    }
+
+    /**
+     * @return The number of nodes, whose region has been compressed. For trees, that are not constructed lazily,
+     * all of their nodes
+     */
+    public int getExpandedNodeCount() {
+        return lazySource == null ? getNodeCount() : lazySource.expandedNodes.get();
+    }
+
+    /**
+     * @return The estimated number of bytes this tree takes up when stored
+     */
+    public long getEstimatedByteSize() {
+        if (root == null)
+            return 0;
+        int leaves = root.numLeaves();
+        return (long) leaves * LEAF_NODE_BYTES + (long) (getNodeCount() - leaves) * BRANCH_NODE_BYTES;
+    }
+
+    /**
+     * A leaf of a tree under budgeted construction, that may still be subdivided.
+     */
+    private static class PendingLeaf implements Comparable<PendingLeaf> {
+        final Node node;
+        final int x;
+        final int y;
+        final int w;
+        final float error;
+
+        PendingLeaf(Node node, int x, int y, int w, float error) {
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.error = error;
+        }
+
+        @Override
+        public int compareTo(PendingLeaf o) {
+            return Float.compare(o.error, error);
+        }
+    }
+
+
+    /**
+     * The image a lazily constructed tree is compressed from, and the statistics of its expansion.
+     */
+    private static class LazySource {
+        final Color[][] image;
+        final float errorTolerance;
+        final AtomicInteger createdNodes = new AtomicInteger();
+        final AtomicInteger expandedNodes = new AtomicInteger();
+
+        LazySource(Color[][] image, float errorTolerance) {
+            this.image = image;
+            this.errorTolerance = errorTolerance;
+        }
+    }
+
+    /**
+     * The region of an image a lazily constructed node has yet to compress.
+     */
+    private static class LazyRegion {
+        final LazySource source;
+        final int x;
+        final int y;
+        final int w;
+
+        LazyRegion(LazySource source, int x, int y, int w) {
+            this.source = source;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+        }
+    }
 
     private static class Node {
 
@@ -116,6 +601,11 @@ public class QuadTree {
 
         private Quad quad;
 
+        /**
+         * The region this node has yet to compress. Null once the node has been expanded, or if it was never lazy
+         */
+        private volatile LazyRegion lazyRegion;
+
         /**
          * Represents the specified region of a given image in this tree.
          * Compression is applied first.
@@ -153,6 +643,7 @@ public class QuadTree {
          * @return Color of a point at the given coordinates. Null if no color was defined
          */
         Color get(int x, int y) {
+            expand();
             if (quad.getColor() == null) {
                 assert !isLeaf();
 
@@ -170,7 +661,65 @@ public class QuadTree {
                 return null; //Point is not defined
         }
 
+        /**
+         * Looks up a range of points sorted by their Morton codes. Points, that fall into the same quadrant
+         * of a region, are next to each other, so each quadrant is visited once for all of its points.
+         *
+         * @param n    The node to look the points up in. Null if the region is not defined
+         * @param w    Region width
+         * @param keys Morton codes of the points above the lowest INDEX_BITS bits, their indices in them
+         * @param from First point of the range
+         * @param to   Index after the last point of the range
+         */
+        static void get(Node n, int w, long[] keys, int from, int to, int[] xs, int[] ys, int[] out) {
+            if (n == null) {
+                for (int k = from; k < to; k++)
+                    out[(int) (keys[k] & INDEX_MASK)] = 0;
+                return;
+            }
+
+            if (n.isLeaf()) {
+                Quad leaf = n.quad;
+                int color = argb(leaf.getColor());
+                for (int k = from; k < to; k++) {
+                    int i = (int) (keys[k] & INDEX_MASK);
+                    //A leaf, that holds a single point, only defines the color of that point
+                    out[i] = leaf.getX() == null || (leaf.getX() == xs[i] && leaf.getY() == ys[i]) ? color : 0;
+                }
+                return;
+            }
+
+            //Quadrant codes of the points in this region are sorted, ordered as below
+            int shift = 2 * Integer.numberOfTrailingZeros(w / 2) + INDEX_BITS;
+            int start = from;
+            for (int code = 0; code < 4; code++) {
+                int end = start;
+                if (code == 3) {
+                    end = to;
+                } else {
+                    //Binary search for the first point of the next quadrant
+                    int hi = to;
+                    while (end < hi) {
+                        int mid = (end + hi) >>> 1;
+                        if (((keys[mid] >>> shift) & 3) <= code)
+                            end = mid + 1;
+                        else
+                            hi = mid;
+                    }
+                }
+                if (end > start)
+                    get(n.children[MORTON_QUADRANTS[code]], w / 2, keys, start, end, xs, ys, out);
+                start = end;
+            }
+        }
+
+        /**
+         * Quadrants in the order of their Morton codes, where the x bit is above the y bit
+         */
+        private static final int[] MORTON_QUADRANTS = {BOTTOM_LEFT, TOP_LEFT, BOTTOM_RIGHT, TOP_RIGHT};
+
         Color get(int x, int y, int minDepth){
+            expand();
             if (quad.getColor() == null) {
                 assert !isLeaf();
 
@@ -210,9 +759,20 @@ public class QuadTree {
             if (w * h == 0)
                 return null;
 
-            int r = 0;
-            int g = 0;
-            int b = 0;
+            Color avg = regionMean(image, i, j, w, h);
+
+            if (regionError(image, i, j, w, h, avg, errorTolerance) > errorTolerance)
+                return null;
+            else return avg;
+        }
+
+        /**
+         * @return The average color of a given region of a given image
+         */
+        static Color regionMean(Color[][] image, int i, int j, int w, int h) {
+            long r = 0;
+            long g = 0;
+            long b = 0;
 
             //Summing red, green and blue colors of the region
             for (int y = j; y < j + h; y++) {
@@ -225,30 +785,38 @@ public class QuadTree {
             }
 
             //Calculating averages
-            int avgR = Math.round(((float) r) / ((float) (w * h)));
-            int avgG = Math.round(((float) g) / ((float) (w * h)));
-            int avgB = Math.round(((float) b) / ((float) (w * h)));
+            int avgR = Math.round(((float) r) / ((float) w * h));
+            int avgG = Math.round(((float) g) / ((float) w * h));
+            int avgB = Math.round(((float) b) / ((float) w * h));
 
-            int errR = 0;
-            int errG = 0;
-            int errB = 0;
+            return new Color(avgR, avgG, avgB);
+        }
+
+        /**
+         * @param avg   The average color of the region
+         * @param limit The error, after exceeding which, the rest of the region is not examined
+         * @return The error of representing a given region of a given image by its average color.
+         * Only a value above the limit, if the error exceeds it
+         */
+        static float regionError(Color[][] image, int i, int j, int w, int h, Color avg, float limit) {
+            long errR = 0;
+            long errG = 0;
+            long errB = 0;
 
             //Calculating error for each color channel
             for (int y = j; y < j + h; y++) {
                 for (int x = i; x < i + w; x++) {
                     Color c = image[x][y];
-                    errR += Math.abs(c.getRed() - avgR);
-                    errG += Math.abs(c.getGreen() - avgG);
-                    errB += Math.abs(c.getBlue() - avgB);
+                    errR += Math.abs(c.getRed() - avg.getRed());
+                    errG += Math.abs(c.getGreen() - avg.getGreen());
+                    errB += Math.abs(c.getBlue() - avg.getBlue());
                 }
+                if (((float) (errR + errG + errB)) / 3f > limit)
+                    break;
             }
 
             //Taking average error of each channel to get the overall region error result.
-            float avgErr = ((float) (errR + errG + errB)) / 3f;
-
-            if (avgErr > errorTolerance)
-                return null;
-            else return new Color(avgR, avgG, avgB);
+            return ((float) (errR + errG + errB)) / 3f;
         }
 
         public Node(Quad quad) {
@@ -260,7 +828,51 @@ public class QuadTree {
             this.children = children;
         }
 
+        /**
+         * Creates a node, that compresses the given region of an image once it is first reached.
+         *
+         * @param x Region x coordinate
+         * @param y Region y coordinate
+         * @param w Region width
+         * @return The unexpanded node
+         */
+        static Node lazy(LazySource source, int x, int y, int w) {
+            Node n = new Node(new Quad(x + (w / 2), y + (w / 2), null));
+            n.lazyRegion = new LazyRegion(source, x, y, w);
+            source.createdNodes.incrementAndGet();
+            return n;
+        }
+
+        /**
+         * Compresses the region of a lazily constructed node, creating its children unexpanded.
+         * Does nothing if the node has already been expanded.
+         */
+        private void expand() {
+            if (lazyRegion == null)
+                return;
+
+            synchronized (this) {
+                LazyRegion r = lazyRegion;
+                if (r == null)
+                    return;
+
+                Color c = determineRegionColor(r.source.image, r.x, r.y, r.w, r.w, r.source.errorTolerance);
+                if (c == null) {
+                    int half = r.w / 2;
+                    for (int i = 0; i < 4; i++)
+                        children[i] = lazy(r.source, childX(i, r.x, half), childY(i, r.y, half), half);
+                } else {
+                    quad = new Quad(c);
+                }
+
+                r.source.expandedNodes.incrementAndGet();
+                //Publishes the children and color to threads, that see the node as expanded
+                lazyRegion = null;
+            }
+        }
+
         public boolean isLeaf() {
+            expand();
             return children[TOP_RIGHT] == null && children[TOP_LEFT] == null && children[BOTTOM_LEFT] == null && children[BOTTOM_RIGHT] == null;
         }
 
@@ -325,6 +937,7 @@ public class QuadTree {
          * @return A number of children this node has
          */
         public int numChildren() {
+            expand();
             int num = 0;
             for (Node child : children) {
                 if (child != null) {
@@ -335,6 +948,167 @@ public class QuadTree {
             return num;
         }
 
+        /**
+         * Passes this node and all of its children to the visitor.
+         *
+         * @param x Region x coordinate
+         * @param y Region y coordinate
+         * @param w Region width
+         */
+        void accept(Visitor visitor, int x, int y, int w) {
+            if (isLeaf()) {
+                visitor.visitLeaf(x, y, w, quad.getColor());
+                return;
+            }
+            visitor.visitBranch(x, y, w);
+
+            int half = w / 2;
+            for (int i = 0; i < 4; i++) {
+                if (children[i] == null)
+                    visitor.visitLeaf(childX(i, x, half), childY(i, y, half), half, null);
+                else
+                    children[i].accept(visitor, childX(i, x, half), childY(i, y, half), half);
+            }
+            visitor.leaveBranch(x, y, w);
+        }
+
+        /**
+         * Copies this subtree to the given region of another tree.
+         *
+         * @param x Region x coordinate in the other tree
+         * @param y Region y coordinate in the other tree
+         * @param w Region width
+         * @return The copy of this node
+         */
+        Node copy(int x, int y, int w) {
+            if (isLeaf())
+                return new Node(new Quad(quad.getColor()));
+
+            Node n = new Node(new Quad(x + (w / 2), y + (w / 2), null));
+            int half = w / 2;
+            for (int i = 0; i < 4; i++) {
+                if (children[i] != null)
+                    n.children[i] = children[i].copy(childX(i, x, half), childY(i, y, half), half);
+            }
+            return n;
+        }
+
+        /**
+         * Copies this subtree to the given region of a tree, that is 2^levels times smaller.
+         *
+         * @param x      Region x coordinate in the smaller tree
+         * @param y      Region y coordinate in the smaller tree
+         * @param w      Region width in the smaller tree
+         * @param levels The number of levels the tree is being shrunk by
+         * @return The downscaled copy of this node
+         */
+        Node downscale(int x, int y, int w, int levels) {
+            if (isLeaf())
+                return new Node(new Quad(quad.getColor()));
+
+            if (w == 1) {
+                //The whole subtree becomes a single pixel
+                long[] sums = new long[4];
+                accumulateColor(sums, 1 << levels);
+                if (sums[3] == 0)
+                    return new Node(new Quad(null));
+                return new Node(new Quad(new Color(
+                        Math.round((float) sums[0] / sums[3]),
+                        Math.round((float) sums[1] / sums[3]),
+                        Math.round((float) sums[2] / sums[3]))));
+            }
+
+            Node n = new Node(new Quad(x + (w / 2), y + (w / 2), null));
+            int half = w / 2;
+            for (int i = 0; i < 4; i++) {
+                if (children[i] != null)
+                    n.children[i] = children[i].downscale(childX(i, x, half), childY(i, y, half), half, levels);
+            }
+            return n;
+        }
+
+        /**
+         * Adds the red, green and blue components of this subtree, weighted by area, to sums[0..2],
+         * and the area, that has a color, to sums[3].
+         *
+         * @param w Region width
+         */
+        void accumulateColor(long[] sums, int w) {
+            if (isLeaf()) {
+                Color c = quad.getColor();
+                if (c != null) {
+                    long area = (long) w * w;
+                    sums[0] += c.getRed() * area;
+                    sums[1] += c.getGreen() * area;
+                    sums[2] += c.getBlue() * area;
+                    sums[3] += area;
+                }
+                return;
+            }
+            for (Node child : children) {
+                if (child != null)
+                    child.accumulateColor(sums, w / 2);
+            }
+        }
+
+        /**
+         * Blends two subtrees, that cover the same region.
+         *
+         * @param base    The bottom subtree. Null if the region is not defined
+         * @param top     The top subtree. Null if the region is not defined
+         * @param x       Region x coordinate
+         * @param y       Region y coordinate
+         * @param w       Region width
+         * @param opacity Opacity of the top subtree
+         * @return The blended subtree
+         */
+        static Node overlay(Node base, Node top, int x, int y, int w, float opacity) {
+            if (top == null || opacity == 0)
+                return base == null ? null : base.copy(x, y, w);
+            if (base == null)
+                return top.copy(x, y, w);
+
+            if (top.isLeaf() && (base.isLeaf() || opacity == 1)) {
+                Color c = base.isLeaf() ? blend(base.quad.getColor(), top.quad.getColor(), opacity) : top.quad.getColor();
+                return new Node(new Quad(c));
+            }
+
+            //A leaf is uniform, so it is blended with each quadrant of the other subtree
+            Node n = new Node(new Quad(x + (w / 2), y + (w / 2), null));
+            int half = w / 2;
+            for (int i = 0; i < 4; i++) {
+                Node b = base.isLeaf() ? base : base.children[i];
+                Node t = top.isLeaf() ? top : top.children[i];
+                n.children[i] = overlay(b, t, childX(i, x, half), childY(i, y, half), half, opacity);
+            }
+            return n;
+        }
+
+        private static Color blend(Color base, Color top, float opacity) {
+            if (base == null || top == null)
+                return base == null ? top : base;
+            return new Color(
+                    Math.round(base.getRed() + (top.getRed() - base.getRed()) * opacity),
+                    Math.round(base.getGreen() + (top.getGreen() - base.getGreen()) * opacity),
+                    Math.round(base.getBlue() + (top.getBlue() - base.getBlue()) * opacity));
+        }
+
+        /**
+         * Returns the number of leaves in the subtree of this node, including itself.
+         *
+         * @return A number of leaves
+         */
+        public int numLeaves() {
+            if (isLeaf())
+                return 1;
+            int num = 0;
+            for (Node child : children) {
+                if (child != null)
+                    num += child.numLeaves();
+            }
+            return num;
+        }
+
         /**
          * Returns a list of rectangles, that represent the quad tree space subdivisions.
          *
@@ -0,0 +1,313 @@
+package main.core;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A compressed image file, that can decode any region of the image without reading the rest of the tree.
+ * <p>
+ * The file consists of a header, an index and the node stream. The index divides the image into a grid of
+ * equally sized cells, and holds the stream offset of the node that covers each cell. Nodes are stored
+ * in depth first order: a branch is a marker byte and the byte length of its children, followed by its four
+ * children, a leaf is a marker byte followed by its color components. The lengths let a decoder
+ * step over any subtree, that is outside of the decoded region, without reading it.
+ */
+public class QuadTreeFile {
+
+    /**
+     * The most tree levels the index covers, when the depth is chosen by {@link #defaultIndexDepth(QuadTree)}
+     */
+    public static final int MAX_INDEX_DEPTH = 6;
+
+    /**
+     * The number of nodes there are at least for each index cell, when the depth is chosen
+     * by {@link #defaultIndexDepth(QuadTree)}. Keeps the index a small part of the file
+     */
+    private static final int NODES_PER_INDEX_CELL = 16;
+
+    /**
+     * Leaves store red, green and blue
+     */
+    public static final int RGB = 3;
+
+    /**
+     * Leaves store only red and green, blue is read back as 0. Used for trees, that keep two values per region
+     */
+    public static final int RED_GREEN = 2;
+
+    /**
+     * Leaves store only red, which is read back into all three components. Used for grayscale trees
+     */
+    public static final int GRAY = 1;
+
+    private static final int MAGIC = 0x51544331;
+    private static final int HEADER_BYTES = 16;
+
+    private static final byte BRANCH = 0;
+    private static final byte LEAF = 1;
+    private static final byte EMPTY = 2;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int cells;
+    private final int cellSize;
+    private final int streamStart;
+    private final int components;
+
+    private QuadTreeFile(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a compressed quad tree file");
+
+        this.size = buffer.getInt(4);
+        this.cells = 1 << buffer.getInt(8);
+        this.components = buffer.getInt(12);
+        this.cellSize = size / cells;
+        this.streamStart = HEADER_BYTES + cells * cells * 4;
+    }
+
+    /**
+     * Opens a compressed image file. The file is memory mapped, so only the parts of it
+     * that are decoded are ever read.
+     *
+     * @param file The file to open
+     * @return The opened file
+     */
+    public static QuadTreeFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new QuadTreeFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Stores a tree, that was constructed from an image, in a file. The index depth is chosen
+     * by {@link #defaultIndexDepth(QuadTree)}.
+     *
+     * @param tree The tree to store
+     * @param file The destination file
+     */
+    public static void write(QuadTree tree, File file) throws IOException {
+        write(tree, file, defaultIndexDepth(tree));
+    }
+
+    /**
+     * Stores a tree, that was constructed from an image, in a file.
+     *
+     * @param tree       The tree to store
+     * @param file       The destination file
+     * @param indexDepth The number of tree levels the index covers. Index takes up 4 * 4^indexDepth bytes
+     */
+    public static void write(QuadTree tree, File file, int indexDepth) throws IOException {
+        write(tree, file, indexDepth, RGB);
+    }
+
+    /**
+     * Stores a tree, that was constructed from an image, in a file.
+     *
+     * @param tree       The tree to store
+     * @param file       The destination file
+     * @param indexDepth The number of tree levels the index covers. Index takes up 4 * 4^indexDepth bytes
+     * @param components The color components each leaf stores: {@link #RGB}, {@link #RED_GREEN} or {@link #GRAY}
+     */
+    public static void write(QuadTree tree, File file, int indexDepth, int components) throws IOException {
+        if (components != RGB && components != RED_GREEN && components != GRAY)
+            throw new UnsupportedOperationException("Leaves can only store 1, 2 or 3 color components");
+
+        int depth = Math.min(Math.max(indexDepth, 0), Integer.numberOfTrailingZeros(tree.getSize()));
+        int cells = 1 << depth;
+        int cellSize = tree.getSize() / cells;
+
+        int[] index = new int[cells * cells];
+        NodeStream stream = new NodeStream();
+
+        //Positions of the length fields of the branches, that are being written
+        int[] lengthPositions = new int[Integer.numberOfTrailingZeros(tree.getSize()) + 1];
+
+        tree.accept(new QuadTree.Visitor() {
+            int depth = 0;
+
+            @Override
+            public void visitBranch(int x, int y, int size) {
+                if (size == cellSize)
+                    index[(x / cellSize) * cells + y / cellSize] = stream.size();
+                stream.write(BRANCH);
+                lengthPositions[depth++] = stream.size();
+                stream.writeInt(0);
+            }
+
+            @Override
+            public void leaveBranch(int x, int y, int size) {
+                int position = lengthPositions[--depth];
+                stream.setInt(position, stream.size() - position - 4);
+            }
+
+            @Override
+            public void visitLeaf(int x, int y, int size, Color color) {
+                //A leaf above the indexed level covers several cells
+                if (size >= cellSize) {
+                    for (int i = x / cellSize; i < (x + size) / cellSize; i++)
+                        for (int j = y / cellSize; j < (y + size) / cellSize; j++)
+                            index[i * cells + j] = stream.size();
+                }
+
+                if (color == null) {
+                    stream.write(EMPTY);
+                } else {
+                    stream.write(LEAF);
+                    stream.write(color.getRed());
+                    if (components >= RED_GREEN)
+                        stream.write(color.getGreen());
+                    if (components == RGB)
+                        stream.write(color.getBlue());
+                }
+            }
+        });
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(tree.getSize());
+            out.writeInt(depth);
+            out.writeInt(components);
+            for (int offset : index)
+                out.writeInt(offset);
+            stream.writeTo(out);
+        }
+    }
+
+    /**
+     * Chooses an index depth, that suits the size of a tree. Cells below a large leaf all hold the same
+     * offset, so the index grows only while there are enough nodes to fill it, up to {@link #MAX_INDEX_DEPTH}.
+     *
+     * @param tree The tree to store
+     * @return The number of tree levels the index should cover
+     */
+    public static int defaultIndexDepth(QuadTree tree) {
+        long nodes = tree.getNodeCount();
+        int depth = 0;
+        while (depth < MAX_INDEX_DEPTH && ((long) NODES_PER_INDEX_CELL << 2 * (depth + 1)) <= nodes)
+            depth++;
+        return Math.min(depth, Integer.numberOfTrailingZeros(tree.getSize()));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Decodes a given region of the image. Only the parts of the tree, that intersect the region, are read.
+     *
+     * @param x Region x coordinate
+     * @param y Region y coordinate
+     * @param w Region width
+     * @param h Region height
+     * @return ARGB colors of the region, where pixels[(i - x) * h + (j - y)] holds the color of point (i, j).
+     * Points, that are not defined, are 0
+     */
+    public int[] decodeRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > size || y + h > size)
+            throw new IndexOutOfBoundsException("Region is outside of the image");
+
+        int[] pixels = new int[w * h];
+        if (w == 0 || h == 0)
+            return pixels;
+
+        Rectangle region = new Rectangle(x, y, w, h);
+        for (int i = x / cellSize; i <= (x + w - 1) / cellSize; i++) {
+            for (int j = y / cellSize; j <= (y + h - 1) / cellSize; j++) {
+                int offset = buffer.getInt(HEADER_BYTES + (i * cells + j) * 4);
+                decodeNode(streamStart + offset, i * cellSize, j * cellSize, cellSize, region, pixels);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Decodes the part of a node, that intersects the region.
+     *
+     * @param pos Position of the node in the file
+     * @param nx  Node region x coordinate
+     * @param ny  Node region y coordinate
+     * @param nw  Node region width
+     */
+    private void decodeNode(int pos, int nx, int ny, int nw, Rectangle region, int[] pixels) {
+        byte tag = buffer.get(pos);
+
+        if (tag == LEAF) {
+            int r = buffer.get(pos + 1) & 0xFF;
+            int argb;
+            if (components == GRAY)
+                argb = 0xFF000000 | r << 16 | r << 8 | r;
+            else if (components == RED_GREEN)
+                argb = 0xFF000000 | r << 16 | (buffer.get(pos + 2) & 0xFF) << 8;
+            else
+                argb = 0xFF000000 | r << 16 | (buffer.get(pos + 2) & 0xFF) << 8 | (buffer.get(pos + 3) & 0xFF);
+            fill(nx, ny, nw, argb, region, pixels);
+            return;
+        } else if (tag == EMPTY) {
+            return;
+        }
+
+        int half = nw / 2;
+        pos += 5;
+        for (int i = 0; i < 4; i++) {
+            int cx = QuadTree.childX(i, nx, half);
+            int cy = QuadTree.childY(i, ny, half);
+            if (intersects(cx, cy, half, region))
+                decodeNode(pos, cx, cy, half, region, pixels);
+            pos = nodeEnd(pos);
+        }
+    }
+
+    /**
+     * @return The position after the node at the given position
+     */
+    private int nodeEnd(int pos) {
+        byte tag = buffer.get(pos);
+        if (tag == LEAF)
+            return pos + 1 + components;
+        else if (tag == EMPTY)
+            return pos + 1;
+        else
+            return pos + 5 + buffer.getInt(pos + 1);
+    }
+
+    private static boolean intersects(int nx, int ny, int nw, Rectangle region) {
+        return nx < region.x + region.width && region.x < nx + nw && ny < region.y + region.height && region.y < ny + nw;
+    }
+
+    private static void fill(int nx, int ny, int nw, int argb, Rectangle region, int[] pixels) {
+        int fromX = Math.max(nx, region.x);
+        int toX = Math.min(nx + nw, region.x + region.width);
+        int fromY = Math.max(ny, region.y) - region.y;
+        int toY = Math.min(ny + nw, region.y + region.height) - region.y;
+
+        for (int i = fromX; i < toX; i++) {
+            int row = (i - region.x) * region.height;
+            Arrays.fill(pixels, row + fromY, row + toY, argb);
+        }
+    }
+
+    /**
+     * A node stream, whose branch lengths can be filled in once their children are written.
+     */
+    private static class NodeStream extends ByteArrayOutputStream {
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void setInt(int position, int v) {
+            buf[position] = (byte) (v >>> 24);
+            buf[position + 1] = (byte) (v >>> 16);
+            buf[position + 2] = (byte) (v >>> 8);
+            buf[position + 3] = (byte) v;
+        }
+    }
+}
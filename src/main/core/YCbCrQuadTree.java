@@ -0,0 +1,228 @@
+package main.core;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An image compressed in YCbCr color space. Brightness (luma) is kept in one tree, and both color
+ * difference (chroma) components share a second tree, built from an image that is 2^chromaLevels times smaller.
+ * Detail in color is much less visible than detail in brightness, so the chroma tree can be far coarser.
+ */
+public class YCbCrQuadTree {
+
+    public static final int DEFAULT_CHROMA_LEVELS = 1;
+
+    /**
+     * Luma of the image, stored in all three color components
+     */
+    private final QuadTree luma;
+
+    /**
+     * Chroma of the image, with Cb stored in the red and Cr in the green color component
+     */
+    private final QuadTree chroma;
+
+    /**
+     * The number of times the chroma image is halved
+     */
+    private final int chromaLevels;
+
+    private final int size;
+
+    public YCbCrQuadTree(Color[][] image, float lumaTolerance, float chromaTolerance) {
+        this(image, lumaTolerance, chromaTolerance, DEFAULT_CHROMA_LEVELS);
+    }
+
+    /**
+     * Constructs the luma and chroma trees of a given image. As in {@link QuadTree#QuadTree(Color[][], float)},
+     * the error of a region is the sum, over its image pixels, of the average absolute error of the components.
+     * For luma that is the error of Y, and for chroma the average error of Cb and Cr. A chroma pixel stands for
+     * a whole block of image pixels, so its error is counted once for each of them.
+     *
+     * @param image           The image to represent
+     * @param lumaTolerance   The tolerance for error when compressing brightness. 0 for lossless compression
+     * @param chromaTolerance The tolerance for error when compressing color
+     * @param chromaLevels    The number of times to halve the chroma image size before compressing it
+     */
+    public YCbCrQuadTree(Color[][] image, float lumaTolerance, float chromaTolerance, int chromaLevels) {
+        if (image.length == 0 || image[0].length != image.length || ((image.length & (image.length - 1)) != 0))
+            throw new UnsupportedOperationException("Quad tree must be a square, and it's size must be a power of two");
+        if (chromaLevels < 0 || chromaLevels > Integer.numberOfTrailingZeros(image.length))
+            throw new UnsupportedOperationException("Chroma can not be subsampled by " + chromaLevels + " levels");
+
+        this.size = image.length;
+        this.chromaLevels = chromaLevels;
+
+        int chromaSize = size >> chromaLevels;
+        int block = 1 << chromaLevels;
+
+        Color[][] lumaImage = new Color[size][size];
+        Color[][] chromaImage = new Color[chromaSize][chromaSize];
+        float[] ycc = new float[3];
+
+        for (int i = 0; i < chromaSize; i++) {
+            for (int j = 0; j < chromaSize; j++) {
+                float cb = 0;
+                float cr = 0;
+
+                //Each chroma pixel is the average of a block of image pixels
+                for (int x = i * block; x < (i + 1) * block; x++) {
+                    for (int y = j * block; y < (j + 1) * block; y++) {
+                        toYCbCr(image[x][y], ycc);
+                        int l = clamp(ycc[0]);
+                        lumaImage[x][y] = new Color(l, l, l);
+                        cb += ycc[1];
+                        cr += ycc[2];
+                    }
+                }
+                chromaImage[i][j] = new Color(clamp(cb / (block * block)), clamp(cr / (block * block)), 0);
+            }
+        }
+
+        luma = new QuadTree(lumaImage, lumaTolerance);
+
+        //The chroma tree divides the error of Cb and Cr by three, as the blue component is always 0,
+        //and counts each chroma pixel once instead of once per image pixel of its block
+        chroma = new QuadTree(chromaImage, chromaTolerance * 2 / (3f * block * block));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public QuadTree getLumaTree() {
+        return luma;
+    }
+
+    public QuadTree getChromaTree() {
+        return chroma;
+    }
+
+    /**
+     * @return The number of nodes both trees have
+     */
+    public int getNodeCount() {
+        return luma.getNodeCount() + chroma.getNodeCount();
+    }
+
+    /**
+     * Luma leaves only store a single component, and chroma leaves two.
+     *
+     * @return The number of bytes the node streams of both trees take up, when stored with {@link #write(File, File)}
+     */
+    public long getEstimatedByteSize() {
+        return estimateByteSize(luma, QuadTreeFile.GRAY) + estimateByteSize(chroma, QuadTreeFile.RED_GREEN);
+    }
+
+    /**
+     * Stores the luma and chroma trees in compressed image files. Each file can be decoded by region
+     * with {@link QuadTreeFile}, and only stores the components its tree uses.
+     *
+     * @param lumaFile   The destination file of the luma tree
+     * @param chromaFile The destination file of the chroma tree
+     */
+    public void write(File lumaFile, File chromaFile) throws IOException {
+        QuadTreeFile.write(luma, lumaFile, QuadTreeFile.defaultIndexDepth(luma), QuadTreeFile.GRAY);
+        QuadTreeFile.write(chroma, chromaFile, QuadTreeFile.defaultIndexDepth(chroma), QuadTreeFile.RED_GREEN);
+    }
+
+    private static long estimateByteSize(QuadTree tree, int components) {
+        long[] bytes = new long[1];
+        tree.accept(new QuadTree.Visitor() {
+            @Override
+            public void visitBranch(int x, int y, int size) {
+                bytes[0] += QuadTree.BRANCH_NODE_BYTES;
+            }
+
+            @Override
+            public void visitLeaf(int x, int y, int size, Color color) {
+                bytes[0] += 1 + components;
+            }
+        });
+        return bytes[0];
+    }
+
+    /**
+     * Retrieves the color of a point at given coordinates. Gives the same result as {@link #decode()}.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return The color of a given point. Null if no color has been set
+     */
+    public Color get(int x, int y) {
+        Color l = luma.getRegionColor(x, y);
+        Color c = chroma.getRegionColor(x >> chromaLevels, y >> chromaLevels);
+        if (l == null || c == null)
+            return null;
+        return new Color(toRGB(l.getRed(), c.getRed(), c.getGreen()));
+    }
+
+    /**
+     * Recombines luma and chroma into an image.
+     *
+     * @return 2D array of colors that represents the image
+     */
+    public Color[][] decode() {
+        int[][] lumaPlane = rasterize(luma);
+        int[][] chromaPlane = rasterize(chroma);
+
+        Color[][] image = new Color[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int c = chromaPlane[x >> chromaLevels][y >> chromaLevels];
+                image[x][y] = new Color(toRGB(lumaPlane[x][y] >> 16 & 0xFF, c >> 16 & 0xFF, c >> 8 & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return RGB colors of every point of a tree
+     */
+    private static int[][] rasterize(QuadTree tree) {
+        int[][] plane = new int[tree.getSize()][tree.getSize()];
+        tree.accept(new QuadTree.Visitor() {
+            @Override
+            public void visitBranch(int x, int y, int size) {
+            }
+
+            @Override
+            public void visitLeaf(int x, int y, int size, Color color) {
+                int rgb = color == null ? 0 : color.getRGB();
+                for (int i = x; i < x + size; i++)
+                    Arrays.fill(plane[i], y, y + size, rgb);
+            }
+        });
+        return plane;
+    }
+
+    /**
+     * Converts a color to full range YCbCr, as used by JPEG.
+     *
+     * @param ycc Receives Y, Cb and Cr
+     */
+    private static void toYCbCr(Color c, float[] ycc) {
+        int r = c.getRed();
+        int g = c.getGreen();
+        int b = c.getBlue();
+        ycc[0] = 0.299f * r + 0.587f * g + 0.114f * b;
+        ycc[1] = 128 - 0.168736f * r - 0.331264f * g + 0.5f * b;
+        ycc[2] = 128 + 0.5f * r - 0.418688f * g - 0.081312f * b;
+    }
+
+    /**
+     * @return RGB value of a full range YCbCr color
+     */
+    private static int toRGB(int y, int cb, int cr) {
+        int r = clamp(y + 1.402f * (cr - 128));
+        int g = clamp(y - 0.344136f * (cb - 128) - 0.714136f * (cr - 128));
+        int b = clamp(y + 1.772f * (cb - 128));
+        return r << 16 | g << 8 | b;
+    }
+
+    private static int clamp(float v) {
+        return Math.min(255, Math.max(0, Math.round(v)));
+    }
+}
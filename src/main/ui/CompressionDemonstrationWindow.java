@@ -71,7 +71,7 @@ public class CompressionDemonstrationWindow implements ActionListener, ChangeLis
                     @Override
                     public void stateChanged(ChangeEvent e) {
                         quadTreeDisplay.setDisplaySubdivisionBoundaries(subdivisionBoundariesCheckbox.isSelected());
-                        CompressionDemonstrationWindow.this.repaintTree();
+                        quadTreeDisplay.repaint();
                     }
                 });
 
@@ -85,7 +85,7 @@ public class CompressionDemonstrationWindow implements ActionListener, ChangeLis
                             quadTreeDisplay.setDisplayMode(QuadTreeDisplay.DISPLAY_CIRCLES);
                         else
                             quadTreeDisplay.setDisplayMode(QuadTreeDisplay.DISPLAY_RECTANGLES);
-                        CompressionDemonstrationWindow.this.repaintTree();
+                        quadTreeDisplay.repaint();
                     }
                 });
 
@@ -14,6 +14,12 @@ public class QuadTreeDisplay extends JPanel {
 
     private QuadTree tree;
 
+    /**
+     * The tree rendered at its own size. Re-rendered only when the tree or display options change
+     */
+    private BufferedImage cachedImage;
+    private boolean dirty = true;
+
     public QuadTreeDisplay(QuadTree tree){
         this.tree = tree;
     }
@@ -22,16 +28,19 @@ public class QuadTreeDisplay extends JPanel {
 
     public void setTree(QuadTree tree){
         this.tree = tree;
+        dirty = true;
     }
 
     private int numberOfNodes = 0;
     private int numberOfLeaves = 0;
 
     public int getNumberOfNodes() {
+        renderIfDirty();
         return numberOfNodes;
     }
 
     public int getNumberOfLeaves() {
+        renderIfDirty();
         return numberOfLeaves;
     }
 
@@ -47,7 +56,10 @@ public class QuadTreeDisplay extends JPanel {
     }
 
     public void setDisplayMode(int displayMode) {
-        this.displayMode = displayMode;
+        if (this.displayMode != displayMode) {
+            this.displayMode = displayMode;
+            dirty = true;
+        }
     }
 
     @Override
@@ -56,7 +68,8 @@ public class QuadTreeDisplay extends JPanel {
         Graphics2D g2d = (Graphics2D) g.create();
         if(tree != null) {
             float scale = ((float)getWidth() - 100) / ((float)tree.getSize());
-            paintTreeContents(g2d, scale, 0);
+            int scaledSize = Math.round(tree.getSize() * scale);
+            g2d.drawImage(getBufferedImage(), 0, 0, scaledSize, scaledSize, null);
         }
 
         g2d.dispose();
@@ -92,19 +105,36 @@ public class QuadTreeDisplay extends JPanel {
         }
     }
 
+    /**
+     * @return The tree rendered at its own size. The image is shared with the display, and must not be modified
+     */
     public BufferedImage getBufferedImage(){
-        BufferedImage bi = new BufferedImage(tree.getSize(), tree.getSize(), BufferedImage.TYPE_INT_RGB);
+        renderIfDirty();
+        return cachedImage;
+    }
 
-        Graphics g = bi.getGraphics();
-        Graphics2D g2d = (Graphics2D) g.create();
+    /**
+     * Renders the tree into the cached image, if the tree or display options have changed since the last render.
+     */
+    private void renderIfDirty(){
+        if(!dirty || tree == null)
+            return;
 
+        if(cachedImage == null || cachedImage.getWidth() != tree.getSize())
+            cachedImage = new BufferedImage(tree.getSize(), tree.getSize(), BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g2d = cachedImage.createGraphics();
         paintTreeContents(g2d, 1f, 0);
+        g2d.dispose();
 
-        return bi;
+        dirty = false;
     }
 
     public void setDisplaySubdivisionBoundaries(boolean enabled){
-        displaySubdivisionBoundaries = enabled;
+        if(displaySubdivisionBoundaries != enabled) {
+            displaySubdivisionBoundaries = enabled;
+            dirty = true;
+        }
     }
 
     @Override